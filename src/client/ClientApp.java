@@ -51,6 +51,7 @@ public final class ClientApp extends UnicastRemoteObject implements Client
     private String myClientName;
     private Server server;
     private ServerProxy serverProxy;
+    private final MessagePipeline messagePipeline = new MessagePipeline( chatTextArea::append );
 
     private int userState;
 
@@ -156,6 +157,7 @@ public final class ClientApp extends UnicastRemoteObject implements Client
 
     private void clearButtonActionPerformed( ActionEvent actionEvent )
     {
+        messagePipeline.clear();
         chatTextArea.setText("");
         messageTextArea.requestFocus();
     }
@@ -232,6 +234,7 @@ public final class ClientApp extends UnicastRemoteObject implements Client
         enableConnect( false );
 
         // clear chat session
+        messagePipeline.clear();
         chatTextArea.setText("");
         messageTextArea.setText("");
         
@@ -276,15 +279,15 @@ public final class ClientApp extends UnicastRemoteObject implements Client
         }
         catch ( NotBoundException exception )
         {
-            update( new Message( "SYSTEM", "No server is registered on this machine.") );
+            showSystemMessage( new Message( "SYSTEM", "No server is registered on this machine.") );
         }
         catch ( RemoteException exception )
         {
-            update( new Message( "SYSTEM", "Server is not responding." ) );
+            showSystemMessage( new Message( "SYSTEM", "Server is not responding." ) );
         }
         catch ( MalformedURLException exception )
         {
-            update( new Message( "SYSTEM", "Cannot proceed. Unexpected exception: \n" + exception ) );
+            showSystemMessage( new Message( "SYSTEM", "Cannot proceed. Unexpected exception: \n" + exception ) );
         }
     }
 
@@ -292,7 +295,7 @@ public final class ClientApp extends UnicastRemoteObject implements Client
     {
         if ( isLogin )
         {
-            serverProxy = new ServerProxy( server, this, myClientName );
+            serverProxy = new ServerProxy( server, myClientName );
             serverProxy.start();
             serverProxy.login( this, myClientName );
         }
@@ -308,15 +311,40 @@ public final class ClientApp extends UnicastRemoteObject implements Client
     }
 
     /**
-     * Append message to the view of the chat
+     * Append message to the view of the chat.
+     * Only enqueues the message on the receive pipeline, so that the server is
+     * not held up by the MessageStages or by the view.
      * @param message the message to be appended
      */
     @Override
-    public synchronized void update( Message message )
+    public void update( Message message )
     {
-        chatTextArea.append( message.getName() + ": " + message.getMessage() + "\n" );
+        messagePipeline.update( message );
     }
 
+    /**
+     * Append a message originating in this client to the view of the chat,
+     * bypassing the receive pipeline, so that no MessageStage can hide it.
+     * @param message the message to be appended
+     */
+    private void showSystemMessage( Message message )
+    {
+        EventQueue.invokeLater( () -> chatTextArea.append( message.getName() + ": " + message.getMessage() + "\n" ) );
+    }
+
+    /**
+     * Add a filter or transformation to apply to each incoming message.
+     * @param name the name of the stage's latency counter
+     * @param stage applied after the stages already added
+     */
+    public void addMessageStage( String name, MessageStage stage ) { messagePipeline.addStage( name, stage ); }
+
+    /**
+     * Get the latency counters of the receive pipeline
+     * @return the queue and process counters, each added stage's counter, and the flush counter, in that order
+     */
+    public java.util.List<LatencyCounter> getLatencyCounters() { return messagePipeline.getLatencyCounters(); }
+
     /**
      * Get the name this client uses in this chat session
      * @return client name
@@ -355,13 +383,11 @@ public final class ClientApp extends UnicastRemoteObject implements Client
         private final Message ERROR_MESSAGE = new Message( "SYSTEM", "Server is not responding." );
 
         private final Server server;
-        private final Client client;
         private final BlockingQueue<Message> q = new LinkedBlockingQueue<>();
 
-        public ServerProxy( Server server, Client client, String name )
+        public ServerProxy( Server server, String name )
         {
             this.server = server;
-            this.client = client;
             q.add( new Message( "SYSTEM", "Connected " + name ) );
 //            start();
         }
@@ -435,13 +461,6 @@ public final class ClientApp extends UnicastRemoteObject implements Client
             }
         }
 
-        private void disconnect()
-        {
-            try
-            {
-                client.update( ERROR_MESSAGE );
-            }
-            catch ( RemoteException ignore ) {} // impossible: local method
-        }
+        private void disconnect() { showSystemMessage( ERROR_MESSAGE ); }
     }
 }
@@ -0,0 +1,73 @@
+package client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the events passing through a pipeline stage and their latencies.
+ * Lock-free: may be updated by many threads at once.
+ */
+public final class LatencyCounter
+{
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param name of the stage measured
+     */
+    public LatencyCounter( String name ) { this.name = name; }
+
+    /**
+     * Record events that took a given time.
+     * @param events the number of events
+     * @param nanos the latency of each event, in nanoseconds
+     */
+    public void record( int events, long nanos )
+    {
+        count.addAndGet( events );
+        totalNanos.addAndGet( events * nanos );
+        maxNanos.accumulateAndGet( nanos, Math::max );
+    }
+
+    /**
+     * Record an event that failed; its latency is recorded separately.
+     */
+    public void recordFailure() { failures.incrementAndGet(); }
+
+    /**
+     * Get Count
+     * @return the number of events recorded
+     */
+    public long getCount() { return count.get(); }
+
+    /**
+     * Get mean latency
+     * @return the mean latency, in nanoseconds; 0 if no events were recorded
+     */
+    public long getMeanNanos()
+    {
+        long events = count.get();
+        return events == 0 ? 0 : totalNanos.get() / events;
+    }
+
+    /**
+     * Get maximum latency
+     * @return the maximum latency, in nanoseconds
+     */
+    public long getMaxNanos() { return maxNanos.get(); }
+
+    /**
+     * Get Failures
+     * @return the number of events that failed
+     */
+    public long getFailures() { return failures.get(); }
+
+    @Override
+    public String toString()
+    {
+        return name + ": count " + getCount() + " mean " + getMeanNanos() / 1000 
+               + " us max " + getMaxNanos() / 1000 + " us failures " + getFailures();
+    }
+}
@@ -0,0 +1,313 @@
+package client;
+
+import api.Message;
+import java.awt.EventQueue;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * The ClientApp's receive pipeline, in 3 phases:
+ * 1. update, invoked by RMI, enqueues the message without locking and returns;
+ * 2. a dispatcher Thread drains the queue in batches and runs the MessageStages
+ *    on the batch's messages - in parallel chunks on worker threads when the
+ *    batch is large - then formats the survivors, in arrival order;
+ * 3. the batch is appended to the view in a single event on the
+ *    event dispatch thread.
+ * Each phase and each registered MessageStage has a LatencyCounter,
+ * updated once per message.
+ * clear discards every message received before it, even those already in flight.
+ */
+final class MessagePipeline
+{
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final int MIN_CHUNK_SIZE = 16; // smaller batches are processed inline
+
+    private final Queue<Arrival> arrivals = new ConcurrentLinkedQueue<>();
+    private final List<RegisteredStage> stages = new CopyOnWriteArrayList<>();
+    private final Consumer<String> view;
+    private final int parallelism;
+    private final ExecutorService workers;
+    private final Thread dispatcher;
+    private volatile int generation; // incremented by clear
+
+    private final LatencyCounter queueCounter   = new LatencyCounter( "queue" );
+    private final LatencyCounter processCounter = new LatencyCounter( "process" );
+    private final LatencyCounter flushCounter   = new LatencyCounter( "flush" );
+
+    /**
+     * A pipeline with a worker per available processor.
+     * @param view appends formatted messages to the view; invoked on the event dispatch thread
+     */
+    MessagePipeline( Consumer<String> view ) { this( view, Runtime.getRuntime().availableProcessors() ); }
+
+    /**
+     * @param view appends formatted messages to the view; invoked on the event dispatch thread
+     * @param parallelism the number of worker threads; 1 processes every batch inline
+     */
+    MessagePipeline( Consumer<String> view, int parallelism )
+    {
+        assert view != null;
+        assert parallelism > 0;
+
+        this.view = view;
+        this.parallelism = parallelism;
+        workers = Executors.newFixedThreadPool( parallelism, runnable -> 
+        {
+            Thread worker = new Thread( runnable, "MessagePipeline-worker" );
+            worker.setDaemon( true );
+            return worker;
+        });
+        dispatcher = new Thread( this::dispatch, "MessagePipeline-dispatcher" );
+        dispatcher.setDaemon( true );
+        dispatcher.start();
+    }
+
+    /**
+     * Enqueue a message for processing. Lock-free: returns immediately.
+     * @param message the message received
+     */
+    void update( Message message )
+    {
+        assert message != null;
+        arrivals.add( new Arrival( message, generation ) );
+        LockSupport.unpark( dispatcher );
+    }
+
+    /**
+     * Discard every message received so far, whether queued, being processed,
+     * or awaiting the event dispatch thread. Invoke it on the event dispatch thread,
+     * just before clearing the view.
+     */
+    void clear()
+    {
+        generation++; // only the event dispatch thread writes generation
+        arrivals.clear();
+    }
+
+    /**
+     * Append a stage to the pipeline.
+     * @param name the name of the stage's LatencyCounter
+     * @param stage the filter or transformation to be applied after those already added
+     */
+    void addStage( String name, MessageStage stage )
+    {
+        assert name != null;
+        assert stage != null;
+        stages.add( new RegisteredStage( name, stage ) );
+    }
+
+    /**
+     * Get LatencyCounters.
+     * The queue and process counters count every message; 
+     * each stage's counter counts the messages that reached it;
+     * the flush counter counts the messages appended to the view.
+     * Failures are counted by the stage that failed or, failing that, by the process counter.
+     * @return the counters of the queue phase, the process phase, 
+     * each stage in order, and the flush phase
+     */
+    List<LatencyCounter> getLatencyCounters() 
+    { 
+        List<LatencyCounter> counters = new ArrayList<>();
+        counters.add( queueCounter );
+        counters.add( processCounter );
+        stages.forEach( stage -> counters.add( stage.counter ) );
+        counters.add( flushCounter );
+        return counters;
+    }
+
+    /**
+     * Stop the dispatcher and worker threads. Messages not yet flushed are discarded.
+     */
+    void shutdown()
+    {
+        dispatcher.interrupt();
+        workers.shutdownNow();
+    }
+
+    private void dispatch()
+    {
+        List<Arrival> batch = new ArrayList<>( MAX_BATCH_SIZE );
+        while ( ! Thread.currentThread().isInterrupted() )
+        {
+            Arrival arrival;
+            while ( batch.size() < MAX_BATCH_SIZE && ( arrival = arrivals.poll() ) != null )
+            {
+                queueCounter.record( 1, System.nanoTime() - arrival.time );
+                batch.add( arrival );
+            }
+            if ( batch.isEmpty() )
+            {
+                LockSupport.park( this );
+                continue;
+            }
+            try
+            {
+                flush( process( batch ) );
+            }
+            catch ( InterruptedException exception )
+            {
+                return; // shut down
+            }
+            catch ( Throwable throwable ) // the dispatcher must outlive any failure
+            {
+                batch.forEach( dropped -> processCounter.recordFailure() ); // fail closed: drop the batch
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Run the stages on each message of the batch: inline when there are no stages
+     * or the batch is small; otherwise in parallel chunks, 1 task per chunk.
+     * @return the formatted survivors, in batch order
+     */
+    private List<Line> process( List<Arrival> batch ) throws InterruptedException, ExecutionException
+    {
+        if ( stages.isEmpty() || batch.size() < 2 * MIN_CHUNK_SIZE || parallelism == 1 )
+        {
+            return applyStages( batch, 0, batch.size() );
+        }
+        int chunkSize = Math.max( MIN_CHUNK_SIZE, ( batch.size() + parallelism - 1 ) / parallelism );
+        List<Future<List<Line>>> chunks = new ArrayList<>();
+        for ( int from = 0; from < batch.size(); from += chunkSize )
+        {
+            int start = from;
+            int end = Math.min( batch.size(), from + chunkSize );
+            chunks.add( workers.submit( () -> applyStages( batch, start, end ) ) );
+        }
+        List<Line> survivors = new ArrayList<>( batch.size() );
+        for ( Future<List<Line>> chunk : chunks )
+        {
+            survivors.addAll( chunk.get() );
+        }
+        return survivors;
+    }
+
+    /**
+     * Run the stages on batch[from, to), and format the survivors.
+     * @return the formatted survivors, in order
+     */
+    private List<Line> applyStages( List<Arrival> batch, int from, int to )
+    {
+        List<Line> survivors = new ArrayList<>( to - from );
+        for ( int i = from; i < to; i++ )
+        {
+            long startTime = System.nanoTime();
+            Arrival arrival = batch.get( i );
+            Message message = arrival.message;
+            for ( RegisteredStage stage : stages )
+            {
+                message = stage.process( message );
+                if ( message == null )
+                {
+                    break;
+                }
+            }
+            if ( message != null )
+            {
+                survivors.add( new Line( arrival.generation, 
+                                         message.getName() + ": " + message.getMessage() + "\n" ) );
+            }
+            processCounter.record( 1, System.nanoTime() - startTime );
+        }
+        return survivors;
+    }
+
+    private void flush( List<Line> lines )
+    {
+        if ( lines.isEmpty() )
+        {
+            return;
+        }
+        long enqueueTime = System.nanoTime();
+        EventQueue.invokeLater( () -> 
+        {
+            StringBuilder text = new StringBuilder();
+            int appended = 0;
+            for ( Line line : lines )
+            {
+                if ( line.generation == generation ) // else received before the view was cleared
+                {
+                    text.append( line.text );
+                    appended++;
+                }
+            }
+            if ( appended > 0 )
+            {
+                view.accept( text.toString() );
+                flushCounter.record( appended, System.nanoTime() - enqueueTime );
+            }
+        });
+    }
+
+    /**
+     * A message, the time it was received, and the generation in which it was received.
+     */
+    private static class Arrival
+    {
+        private final Message message;
+        private final int generation;
+        private final long time = System.nanoTime();
+
+        Arrival( Message message, int generation ) 
+        { 
+            this.message = message; 
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * A formatted message awaiting the view.
+     */
+    private static class Line
+    {
+        private final int generation;
+        private final String text;
+
+        Line( int generation, String text )
+        {
+            this.generation = generation;
+            this.text = text;
+        }
+    }
+
+    /**
+     * A MessageStage and its LatencyCounter.
+     */
+    private static class RegisteredStage
+    {
+        private final MessageStage stage;
+        private final LatencyCounter counter;
+
+        RegisteredStage( String name, MessageStage stage )
+        {
+            this.stage = stage;
+            this.counter = new LatencyCounter( name );
+        }
+
+        /**
+         * A stage that throws anything, Errors included, is skipped: the message
+         * passes on as this stage received it, so earlier transformations are kept
+         * and later filters still apply.
+         */
+        Message process( Message message )
+        {
+            long startTime = System.nanoTime();
+            try
+            {
+                return stage.process( message );
+            }
+            catch ( Throwable throwable )
+            {
+                counter.recordFailure();
+                return message;
+            }
+            finally
+            {
+                counter.record( 1, System.nanoTime() - startTime );
+            }
+        }
+    }
+}
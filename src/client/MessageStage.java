@@ -0,0 +1,20 @@
+package client;
+
+import api.Message;
+
+/**
+ * A pluggable step of the ClientApp's receive pipeline:
+ * a filter (e.g., a mute list) or a transformation (e.g., highlighting).
+ * Stages run on pipeline worker threads, possibly on several messages
+ * at once, so an implementation must be thread-safe.
+ */
+@FunctionalInterface
+public interface MessageStage
+{
+    /**
+     * Process an incoming message.
+     * @param message the message received, as output by the previous stage
+     * @return the message to pass to the next stage, or null to drop it
+     */
+    public Message process( Message message );
+}
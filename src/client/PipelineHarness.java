@@ -0,0 +1,211 @@
+package client;
+
+import api.Message;
+import java.awt.EventQueue;
+import java.util.*;
+
+/**
+ * Checks the ClientApp's receive pipeline under load.
+ * Several senders enqueue sequenced messages as fast as they can, so that
+ * batches are large and are processed in parallel chunks. The stages:
+ * 1. a transformation that brackets the content;
+ * 2. a stage that stalls for a random time, so chunks finish out of order;
+ * 3. a stage that throws a RuntimeException on some messages;
+ * 4. a stage that throws an Error on some messages;
+ * 5. a filter that drops every message whose sequence number is a multiple of DROP_PERIOD.
+ * Each round checks that the view shows exactly the surviving messages,
+ * each transformed, and each sender's in the order sent, and that every
+ * stage failure was counted. It then checks that clear discards a burst of
+ * messages received just before it, but not a message received after it.
+ *
+ * Usage: PipelineHarness [rounds [senders [messages per sender [parallelism]]]]
+ */
+public final class PipelineHarness
+{
+    private static final long DROP_PERIOD  = 7;
+    private static final long THROW_PERIOD = 11;
+    private static final long ERROR_PERIOD = 13;
+    private static final int CLEAR_BURST   = 1000;
+    private static final long QUIESCENCE_TIMEOUT = 30000; // milliseconds
+
+    private final int senders;
+    private final int messages;
+    private final MessagePipeline pipeline;
+    private final StringBuffer view = new StringBuffer();
+
+    PipelineHarness( int senders, int messages, int parallelism )
+    {
+        this.senders = senders;
+        this.messages = messages;
+        pipeline = new MessagePipeline( view::append, parallelism );
+        pipeline.addStage( "bracket", message -> new Message( message.getName(), "[" + message.getMessage() + "]" ) );
+        pipeline.addStage( "stall", message -> 
+        {
+            long spin = System.nanoTime() + new Random().nextInt( 20000 ); // up to 20 us
+            while ( System.nanoTime() < spin );
+            return message;
+        });
+        pipeline.addStage( "throw", message -> 
+        {
+            if ( sequenceNumber( message ) % THROW_PERIOD == 0 )
+            {
+                throw new IllegalStateException( "injected stage failure" );
+            }
+            return message;
+        });
+        pipeline.addStage( "error", message -> 
+        {
+            if ( sequenceNumber( message ) % ERROR_PERIOD == 0 )
+            {
+                throw new AssertionError( "injected stage error" );
+            }
+            return message;
+        });
+        pipeline.addStage( "mute", message -> sequenceNumber( message ) % DROP_PERIOD == 0 ? null : message );
+    }
+
+    /**
+     * Run the rounds.
+     * @param args rounds, senders, messages per sender, parallelism; each optional
+     * @throws Exception if interrupted while awaiting the view
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        int rounds      = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 10;
+        int senders     = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 4;
+        int messages    = args.length > 2 ? Integer.parseInt( args[ 2 ] ) : 20000;
+        int parallelism = args.length > 3 ? Integer.parseInt( args[ 3 ] ) : 4;
+
+        for ( int round = 0; round < rounds; round++ )
+        {
+            PipelineHarness harness = new PipelineHarness( senders, messages, parallelism );
+            List<String> violations = harness.run();
+            if ( ! violations.isEmpty() )
+            {
+                System.out.println( "Round " + round + " FAILED:" );
+                violations.forEach( violation -> System.out.println( "   " + violation ) );
+                System.exit( 1 );
+            }
+            System.out.println( "Round " + round + " passed." );
+            harness.pipeline.getLatencyCounters().forEach( counter -> System.out.println( "   " + counter ) );
+        }
+        System.exit( 0 ); // the view is appended on the AWT event dispatch thread
+    }
+
+    /**
+     * Run one round.
+     * @return the violations observed; empty if the round passed
+     * @throws Exception if interrupted while awaiting the view
+     */
+    List<String> run() throws Exception
+    {
+        List<Thread> senderThreads = new ArrayList<>();
+        for ( int i = 0; i < senders; i++ )
+        {
+            String name = "sender-" + i;
+            Thread thread = new Thread( () -> 
+            {
+                for ( long sequenceNumber = 0; sequenceNumber < messages; sequenceNumber++ )
+                {
+                    pipeline.update( new Message( name, "" + sequenceNumber ) );
+                }
+            });
+            senderThreads.add( thread );
+            thread.start();
+        }
+        for ( Thread thread : senderThreads )
+        {
+            thread.join();
+        }
+
+        long survivorsPerSender = messages - ( messages + DROP_PERIOD - 1 ) / DROP_PERIOD;
+        long expectedLines = senders * survivorsPerSender;
+        long deadline = System.currentTimeMillis() + QUIESCENCE_TIMEOUT;
+        while ( lines().length < expectedLines && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 10 );
+        }
+        List<String> violations = check( lines(), survivorsPerSender );
+        checkClear( violations );
+        pipeline.shutdown();
+        return violations;
+    }
+
+    private void checkClear( List<String> violations ) throws Exception
+    {
+        for ( int sequenceNumber = 1; sequenceNumber <= CLEAR_BURST; sequenceNumber++ )
+        {
+            pipeline.update( new Message( "before-clear", "" + sequenceNumber ) );
+        }
+        EventQueue.invokeAndWait( () -> 
+        {
+            pipeline.clear();
+            view.setLength( 0 );
+        });
+        pipeline.update( new Message( "after-clear", "1" ) );
+        long deadline = System.currentTimeMillis() + QUIESCENCE_TIMEOUT;
+        while ( view.indexOf( "after-clear" ) < 0 && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 10 );
+        }
+        EventQueue.invokeAndWait( () -> {} ); // let any stale batch reach the view
+        if ( ! view.toString().equals( "after-clear: [1]\n" ) )
+        {
+            violations.add( "After clear, viewed " + lines().length + " lines; expected only the message sent after clear." );
+        }
+    }
+
+    private List<String> check( String[] lines, long survivorsPerSender )
+    {
+        List<String> violations = new LinkedList<>();
+        Map<String, Long> expectedSequenceNumbers = new HashMap<>();
+        for ( String line : lines )
+        {
+            int separator = line.indexOf( ": " );
+            String name = line.substring( 0, separator );
+            String content = line.substring( separator + 2 );
+            if ( ! content.startsWith( "[" ) || ! content.endsWith( "]" ) )
+            {
+                violations.add( "Untransformed: " + line );
+                continue;
+            }
+            long sequenceNumber = Long.parseLong( content.substring( 1, content.length() - 1 ) );
+            long expected = expectedSequenceNumbers.getOrDefault( name, 1L ); // 0 is dropped
+            if ( sequenceNumber != expected )
+            {
+                violations.add( name + ": expected " + expected + " but viewed " + sequenceNumber );
+            }
+            expected = sequenceNumber + 1;
+            if ( expected % DROP_PERIOD == 0 )
+            {
+                expected++;
+            }
+            expectedSequenceNumbers.put( name, expected );
+        }
+        if ( lines.length != senders * survivorsPerSender )
+        {
+            violations.add( "Viewed " + lines.length + " messages; expected " + senders * survivorsPerSender + "." );
+        }
+        long failures = pipeline.getLatencyCounters().stream()
+                                .mapToLong( LatencyCounter::getFailures ).sum();
+        long expectedFailures = senders * ( ( messages + THROW_PERIOD - 1 ) / THROW_PERIOD 
+                                            + ( messages + ERROR_PERIOD - 1 ) / ERROR_PERIOD );
+        if ( failures != expectedFailures )
+        {
+            violations.add( "Counted " + failures + " stage failures; expected " + expectedFailures + "." );
+        }
+        return violations;
+    }
+
+    private String[] lines()
+    {
+        String text = view.toString();
+        return text.isEmpty() ? new String[ 0 ] : text.split( "\n" );
+    }
+
+    private static long sequenceNumber( Message message )
+    {
+        String content = message.getMessage();
+        return Long.parseLong( content.substring( 1, content.length() - 1 ) );
+    }
+}
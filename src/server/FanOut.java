@@ -0,0 +1,225 @@
+package server;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Applies an action to every element of a list of recipients:
+ * inline, on the caller's thread, for small lists;
+ * in parallel chunks, on a ForkJoinPool, for large lists.
+ * The size at which it goes parallel tunes itself:
+ * it is the size at which the measured per-recipient cost of the action
+ * outweighs the measured fixed cost of a parallel fan-out.
+ * So that a spell of slow parallel runs cannot keep a room inline for good,
+ * every PROBE_PERIOD-th inline run that is large enough to go parallel
+ * is run in parallel instead, to measure the overhead afresh.
+ * forEach returns only after the action has been applied to every recipient.
+ */
+final class FanOut
+{
+    private static final int MIN_PARALLEL_SIZE   = 64;
+    private static final int MIN_MEASURED_SIZE   = 16;   // smaller inline runs are too short to time
+    private static final int CHUNKS_PER_THREAD   = 4;
+    private static final int PROBE_PERIOD        = 64;
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private final int fixedThreshold; // 0 when adaptive
+
+    // In nanoseconds. Updated under the caller's lock.
+    private final Estimate recipientCost = new Estimate( 100.0 );
+    private final Estimate parallelOverhead = new Estimate( 50000.0 );
+    private int inlineRunsSinceProbe;
+    private volatile long parallelRuns; // written only under the caller's lock
+
+    /**
+     * An adaptive FanOut that uses every available processor.
+     */
+    FanOut() { this( Runtime.getRuntime().availableProcessors() ); }
+
+    /**
+     * An adaptive FanOut.
+     * @param parallelism the number of threads among which large fan-outs are divided
+     */
+    FanOut( int parallelism ) { this( parallelism, 0 ); }
+
+    /**
+     * A FanOut with a fixed threshold, for testing and benchmarking:
+     * a threshold of 1 always fans out in parallel;
+     * Integer.MAX_VALUE never does.
+     * @param parallelism the number of threads among which large fan-outs are divided
+     * @param threshold recipient lists at least this large are fanned out in parallel; 0 for adaptive
+     */
+    FanOut( int parallelism, int threshold )
+    {
+        assert parallelism > 0;
+        assert threshold >= 0;
+
+        this.parallelism = parallelism;
+        fixedThreshold = threshold;
+        pool = parallelism > 1 ? new ForkJoinPool( parallelism ) : null;
+    }
+
+    /**
+     * Apply action to each recipient.
+     * Not reentrant: its caller serializes invocations.
+     * @param <T> the recipient type
+     * @param recipients the recipients; not modified during the invocation
+     * @param action a thread-safe action
+     */
+    <T> void forEach( List<T> recipients, Consumer<T> action )
+    {
+        assert recipients != null;
+        assert action != null;
+
+        int size = recipients.size();
+        long startTime = System.nanoTime();
+        if ( size < getThreshold() && ! isProbeDue( size ) )
+        {
+            recipients.forEach( action );
+            if ( size >= MIN_MEASURED_SIZE )
+            {
+                recipientCost.update( (double) ( System.nanoTime() - startTime ) / size );
+            }
+            return;
+        }
+        int chunkSize = Math.max( MIN_MEASURED_SIZE, size / ( parallelism * CHUNKS_PER_THREAD ) );
+        LongAdder workTime = new LongAdder();
+        parallelRuns++;
+        pool.invoke( new Chunk<>( recipients, 0, size, chunkSize, action, workTime ) );
+        long elapsedTime = System.nanoTime() - startTime;
+        double work = workTime.sum();
+        recipientCost.update( work / size );
+        parallelOverhead.update( Math.max( 0.0, elapsedTime - work / parallelism ) );
+    }
+
+    /**
+     * Get the current threshold: recipient lists at least this large are fanned out in parallel.
+     * @return the threshold; Integer.MAX_VALUE when there is only 1 thread or after shutdown
+     */
+    int getThreshold()
+    {
+        if ( pool == null || pool.isShutdown() )
+        {
+            return Integer.MAX_VALUE;
+        }
+        if ( fixedThreshold > 0 )
+        {
+            return fixedThreshold;
+        }
+        // Parallel pays when size * cost * (1 - 1/parallelism) > overhead.
+        double breakEven = parallelOverhead.get() / ( recipientCost.get() * ( 1.0 - 1.0 / parallelism ) );
+        return (int) Math.max( MIN_PARALLEL_SIZE, Math.min( Integer.MAX_VALUE, breakEven ) );
+    }
+
+    /**
+     * Get the number of fan-outs run in parallel.
+     * @return the number of parallel fan-outs, probes included
+     */
+    long getParallelRuns() { return parallelRuns; }
+
+    /**
+     * Stop the pool's threads. Subsequent fan-outs run inline.
+     */
+    void shutdown()
+    {
+        if ( pool != null )
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Count an inline run of the given size.
+     * @return true if this run should be a parallel probe instead
+     */
+    private boolean isProbeDue( int size )
+    {
+        if ( pool == null || pool.isShutdown() || fixedThreshold > 0 || size < MIN_PARALLEL_SIZE )
+        {
+            return false;
+        }
+        if ( ++inlineRunsSinceProbe < PROBE_PERIOD )
+        {
+            return false;
+        }
+        inlineRunsSinceProbe = 0;
+        return true;
+    }
+
+    /**
+     * An exponentially smoothed measurement that ignores isolated high outliers,
+     * such as a run interrupted by garbage collection.
+     * A run of MAX_OUTLIERS + 1 high measurements is taken as a real change.
+     */
+    private static class Estimate
+    {
+        private static final double SMOOTHING = 0.125; // weight of each new measurement
+        private static final double OUTLIER_FACTOR = 4.0;
+        private static final int MAX_OUTLIERS = 3;
+
+        private double average;
+        private int outliers; // consecutive measurements rejected
+
+        Estimate( double initialAverage ) { average = initialAverage; }
+
+        double get() { return average; }
+
+        void update( double measurement )
+        {
+            if ( measurement > OUTLIER_FACTOR * average && outliers < MAX_OUTLIERS )
+            {
+                outliers++;
+                return;
+            }
+            outliers = 0;
+            average += SMOOTHING * ( measurement - average );
+        }
+    }
+
+    /**
+     * The recipients in [from, to): split in half until no larger than chunkSize.
+     */
+    private static class Chunk<T> extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<T> recipients;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+        private final Consumer<T> action;
+        private final LongAdder workTime;
+
+        Chunk( List<T> recipients, int from, int to, int chunkSize, Consumer<T> action, LongAdder workTime )
+        {
+            this.recipients = recipients;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+            this.action = action;
+            this.workTime = workTime;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( to - from <= chunkSize )
+            {
+                long startTime = System.nanoTime();
+                for ( int i = from; i < to; i++ )
+                {
+                    action.accept( recipients.get( i ) );
+                }
+                workTime.add( System.nanoTime() - startTime );
+                return;
+            }
+            int middle = ( from + to ) >>> 1;
+            invokeAll( new Chunk<>( recipients, from, middle, chunkSize, action, workTime ),
+                       new Chunk<>( recipients, middle, to, chunkSize, action, workTime ) );
+        }
+    }
+}
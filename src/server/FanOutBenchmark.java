@@ -0,0 +1,145 @@
+package server;
+
+import api.Message;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Measures broadcast latency of FanOut, by room size and parallelism.
+ * For each room size it reports the latency of
+ * inline delivery (on the caller's thread) and, for each parallelism,
+ * of forced parallel delivery and of adaptive delivery, with the
+ * threshold the adaptive FanOut settled on.
+ * Each recipient is a queue with its own Thread blocked taking from it,
+ * as a ClientProxy is, so each delivery enqueues a message and wakes a Thread,
+ * as ServerImpl.update does per client. (The Thread counts the message
+ * instead of invoking a Remote client.)
+ * It also checks that every broadcast reached every recipient exactly once.
+ *
+ * Usage: FanOutBenchmark [deliveries per measurement]
+ */
+public final class FanOutBenchmark
+{
+    private static final int[] ROOM_SIZES = { 10, 100, 1000, 10000 };
+    private static final int MIN_BROADCASTS = 32;
+    private static final long DELIVERY_TIMEOUT = 60000; // milliseconds
+
+    /**
+     * Run the benchmark.
+     * @param args optional number of deliveries (broadcasts * room size) per measurement
+     * @throws InterruptedException if interrupted while awaiting delivery
+     */
+    public static void main( String[] args ) throws InterruptedException
+    {
+        int deliveries = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 1 << 19;
+        int processors = Runtime.getRuntime().availableProcessors();
+        List<Integer> parallelisms = new ArrayList<>();
+        for ( int parallelism = 2; parallelism < processors; parallelism *= 2 )
+        {
+            parallelisms.add( parallelism );
+        }
+        if ( processors > 1 )
+        {
+            parallelisms.add( processors );
+        }
+
+        System.out.println( "Mean broadcast latency in microseconds." );
+        System.out.println( "For each parallelism p: forced parallel / adaptive (adaptive threshold)." );
+        System.out.printf( "%10s%12s", "room size", "inline" );
+        parallelisms.forEach( parallelism -> System.out.printf( "%32s", "p = " + parallelism ) );
+        System.out.println();
+        for ( int roomSize : ROOM_SIZES )
+        {
+            int broadcasts = Math.max( MIN_BROADCASTS, deliveries / roomSize );
+            List<Recipient> room = new ArrayList<>( roomSize );
+            for ( int i = 0; i < roomSize; i++ )
+            {
+                Recipient recipient = new Recipient();
+                recipient.start();
+                room.add( recipient );
+            }
+            System.out.printf( "%10d%12.1f", roomSize, latency( new FanOut( 1 ), room, broadcasts ) );
+            for ( int parallelism : parallelisms )
+            {
+                double parallel = latency( new FanOut( parallelism, 1 ), room, broadcasts );
+                FanOut adaptive = new FanOut( parallelism );
+                measure( adaptive, room, broadcasts ); // let the threshold settle
+                double adaptiveLatency = measure( adaptive, room, broadcasts );
+                int threshold = adaptive.getThreshold();
+                adaptive.shutdown();
+                System.out.printf( "%32s", String.format( "%.1f / %.1f (%d)", parallel, adaptiveLatency, threshold ) );
+            }
+            System.out.println();
+            room.forEach( Thread::interrupt );
+        }
+    }
+
+    /**
+     * Warm up fanOut, measure it, then shut it down.
+     * @return mean broadcast latency, in microseconds
+     */
+    private static double latency( FanOut fanOut, List<Recipient> room, int broadcasts ) throws InterruptedException
+    {
+        measure( fanOut, room, broadcasts );
+        double latency = measure( fanOut, room, broadcasts );
+        fanOut.shutdown();
+        return latency;
+    }
+
+    /**
+     * Broadcast, then await and check delivery, untimed.
+     * @return mean broadcast latency, in microseconds
+     */
+    private static double measure( FanOut fanOut, List<Recipient> room, int broadcasts ) throws InterruptedException
+    {
+        Message message = new Message( "benchmark", "message" );
+        long expected = room.get( 0 ).received + broadcasts;
+        long totalTime = 0;
+        for ( int i = 0; i < broadcasts; i++ )
+        {
+            long startTime = System.nanoTime();
+            fanOut.forEach( room, recipient -> recipient.q.add( message ) );
+            totalTime += System.nanoTime() - startTime;
+        }
+        long deadline = System.currentTimeMillis() + DELIVERY_TIMEOUT;
+        for ( Recipient recipient : room )
+        {
+            while ( recipient.received < expected && System.currentTimeMillis() < deadline )
+            {
+                Thread.sleep( 1 );
+            }
+            if ( recipient.received != expected )
+            {
+                throw new IllegalStateException( "A recipient received " + recipient.received 
+                                                 + " of " + expected + " broadcasts." );
+            }
+        }
+        return totalTime / 1000.0 / broadcasts;
+    }
+
+    /**
+     * Stands in for a ClientProxy: a queue and a Thread blocked taking from it.
+     */
+    private static class Recipient extends Thread
+    {
+        private final BlockingQueue<Message> q = new LinkedBlockingQueue<>();
+        private volatile long received; // written only by this Thread
+
+        Recipient() { setDaemon( true ); }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while ( true )
+                {
+                    q.take();
+                    received++;
+                }
+            }
+            catch ( InterruptedException exception ) {} // room dismissed
+        }
+    }
+}
@@ -18,14 +18,30 @@ import java.util.concurrent.LinkedBlockingQueue;
  */
 public final class ServerImpl extends UnicastRemoteObject implements Server
 {
+    /**
+     * Prefix of the name of each ClientProxy Thread.
+     */
+    static final String CLIENT_PROXY_THREAD_PREFIX = "ClientProxy-";
+
     private final Map<Client, ClientProxy> clientProxies = Collections.synchronizedMap( new HashMap<Client,ClientProxy>() );
+    private final Map<Client, ClientProxy> retiredClientProxies = Collections.synchronizedMap( new HashMap<Client,ClientProxy>() );
+    private final FanOut fanOut;
+    private List<ClientProxy> recipients; // snapshot of clientProxies.values(); null when stale
 
     /**
      * Chat Server
      * @throws RemoteException when unable to open sockets to listen for
      * remotely invoked methods
      */
-    ServerImpl() throws RemoteException {}
+    ServerImpl() throws RemoteException { this( new FanOut() ); }
+
+    /**
+     * Chat Server that broadcasts with the given FanOut
+     * @param fanOut applies each update to the ClientProxies
+     * @throws RemoteException when unable to open sockets to listen for
+     * remotely invoked methods
+     */
+    ServerImpl( FanOut fanOut ) throws RemoteException { this.fanOut = fanOut; }
 
     /**
      * Used to instantiate a chat Server
@@ -47,9 +63,19 @@ public final class ServerImpl extends UnicastRemoteObject implements Server
         assert client != null;
         assert name   != null;
         
-        ClientProxy clientProxy = new ClientProxy( client, name );
+        ClientProxy replacedClientProxy = clientProxies.get( client );
+        if ( null != replacedClientProxy )
+        {
+            retire( replacedClientProxy ); // client logged in again
+        }
+        ClientProxy clientProxy = new ClientProxy( client, name, retiredClientProxies.get( client ) );
+        if ( null != replacedClientProxy )
+        {
+            replacedClientProxy.q.drainTo( clientProxy.q ); // the session continues: lose nothing
+        }
         clientProxy.start();
         clientProxies.put( client, clientProxy );
+        recipients = null;
         update( new Message( name, "Signed on.") );
 
         assert clientProxies.get( client ) == clientProxy; // postcondition
@@ -60,15 +86,44 @@ public final class ServerImpl extends UnicastRemoteObject implements Server
     {
         assert client != null;
 
-        ClientProxy clientProxy = clientProxies.remove( client );
+        ClientProxy clientProxy = clientProxies.get( client );
         if ( null != clientProxy )
         {
-            update( new Message( clientProxy.getClientName(), "Signed off.") );
+            removeClientProxy( clientProxy );
         }
 
         assert clientProxies.get( client ) == null; // postcondition
     }
 
+    /**
+     * Remove clientProxy, if it still is its client's proxy, and stop its Thread.
+     * A proxy whose client has since logged in again thus cannot log out
+     * the client's new proxy.
+     * @param clientProxy the proxy to be removed
+     */
+    synchronized private void removeClientProxy( ClientProxy clientProxy )
+    {
+        assert clientProxy != null;
+
+        if ( clientProxies.remove( clientProxy.client, clientProxy ) )
+        {
+            recipients = null;
+            retire( clientProxy );
+            update( new Message( clientProxy.getClientName(), "Signed off.") );
+        }
+    }
+
+    /**
+     * Stop clientProxy's Thread. Until it has stopped, its client's next proxy
+     * does not invoke the client, so that the client receives messages in order.
+     * @param clientProxy a proxy no longer in clientProxies
+     */
+    private void retire( ClientProxy clientProxy )
+    {
+        retiredClientProxies.put( clientProxy.client, clientProxy );
+        clientProxy.interrupt();
+    }
+
     @Override
     synchronized public List<String> list()
     {
@@ -78,13 +133,22 @@ public final class ServerImpl extends UnicastRemoteObject implements Server
         return clientNameList;
     }
 
+    /**
+     * Enqueue message on each ClientProxy's queue.
+     * Large rooms are fanned out in parallel; see FanOut.
+     * It returns only when every queue has the message, so each sender's
+     * messages reach each client in order.
+     * @param message the message to be broadcast
+     */
     @Override
     synchronized public void update( Message message )
     {
         assert message != null;
-        clientProxies.values()
-                     .stream()
-                     .forEach(clientProxy -> clientProxy.update( message ) );
+        if ( recipients == null )
+        {
+            recipients = new ArrayList<>( clientProxies.values() );
+        }
+        fanOut.forEach( recipients, clientProxy -> clientProxy.update( message ) );
     }
 
     /**
@@ -92,6 +156,11 @@ public final class ServerImpl extends UnicastRemoteObject implements Server
      */
     Map<Client, ClientProxy> getClientProxies() { return clientProxies; }
 
+    /**
+     * Only for unit testing: stop the FanOut's threads.
+     */
+    void shutdown() { fanOut.shutdown(); }
+
 
     /**
      * The Thread that invokes Remote methods on the Client - one per Client
@@ -101,21 +170,26 @@ public final class ServerImpl extends UnicastRemoteObject implements Server
         private final Client client;
         private final String clientName;
         private final BlockingQueue<Message> q;
+        private final ClientProxy predecessor;
 
         /**
          *
          * @param client the client for which this is a remote proxy
          * @param clientName cached value of client.getName()
-         * @param server the chat server that has a reference to this
+         * @param predecessor the client's retired proxy, which may still be
+         * invoking the client; null if none
          */
-        public ClientProxy( Client client, String clientName )
+        public ClientProxy( Client client, String clientName, ClientProxy predecessor )
         {
+            super( CLIENT_PROXY_THREAD_PREFIX + clientName );
             this.q = new LinkedBlockingQueue<>();
             assert client != null;
             assert clientName != null;
 
             this.client = client;
             this.clientName = clientName;
+            this.predecessor = predecessor;
+            setDaemon( true );
         }
 
         @Override
@@ -128,22 +202,55 @@ public final class ServerImpl extends UnicastRemoteObject implements Server
         /**
          * When its queue of messages is nonempty, it updates
          * its corresponding Remote client with the message.
+         * It returns when its client fails or when it is interrupted by logout.
+         * It first waits for its predecessor to return, even if interrupted.
          */
         @Override
         public void run()
         {
-            while ( true )
+            awaitPredecessor();
+            try
+            {
+                while ( true )
+                {
+                    try
+                    {
+                        client.update( q.take() );
+                    }
+                    catch (RemoteException exception)
+                    {                    
+                        removeClientProxy( this );
+                        return;
+                    }
+                    catch ( InterruptedException exception )
+                    {
+                        return; // logged out
+                    }
+                }
+            }
+            finally
+            {
+                retiredClientProxies.remove( client, this );
+            }
+        }
+
+        private void awaitPredecessor()
+        {
+            boolean isInterrupted = false;
+            while ( predecessor != null && predecessor.isAlive() )
             {
                 try
                 {
-                    client.update( q.take() );
+                    predecessor.join();
                 }
-                catch (RemoteException exception)
-                {                    
-                    ServerImpl.this.logout( this );
-                    return;
+                catch ( InterruptedException exception )
+                {
+                    isInterrupted = true;
                 }
-                catch ( InterruptedException ignore ) {}
+            }
+            if ( isInterrupted )
+            {
+                interrupt(); // logged out while waiting
             }
         }
 
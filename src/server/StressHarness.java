@@ -0,0 +1,303 @@
+package server;
+
+import api.*;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import transport.*;
+
+/**
+ * Stresses a ServerImpl, in process, with randomized schedules of
+ * login, logout, update, and injected Link latency, stalls, and failures.
+ * Each round checks that:
+ * 1. every Client receives each sender's messages in the order sent;
+ * 2. a Client that is logged in throughout receives every message exactly once;
+ * 3. once all Clients have logged out, no ClientProxy Thread remains.
+ * In parallel mode, PARALLEL_OBSERVERS Clients stay logged in throughout and the
+ * server's FanOut has PARALLEL_FAN_OUT_THREADS threads and a threshold of
+ * PARALLEL_FAN_OUT_THRESHOLD, so every broadcast is fanned out in parallel chunks,
+ * even on a single processor; the round also checks that it was.
+ * A round's seed fixes each churner's sequence of operations and each Link's
+ * failure draws, but not how the churner and ClientProxy threads interleave.
+ * Rerunning a failing round's seed replays its operations, not its schedule,
+ * so a race it exposed may take several reruns to reproduce.
+ *
+ * Usage: StressHarness [parallel] [rounds [churners [operations [seed]]]]
+ *
+ */
+public final class StressHarness
+{
+    private static final String SEQUENCE_PREFIX = "#";
+    private static final int OBSERVERS = 4;
+    private static final int PARALLEL_OBSERVERS = 256;
+    private static final int PARALLEL_FAN_OUT_THREADS = 4;
+    private static final int PARALLEL_FAN_OUT_THRESHOLD = 32;
+    private static final long QUIESCENCE_TIMEOUT = 30000; // milliseconds
+
+    private final long seed;
+    private final int churners;
+    private final int operations;
+    private final int observerCount;
+    private final FanOut fanOut;
+    private final ServerImpl server;
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final List<String> violations = Collections.synchronizedList( new LinkedList<String>() );
+
+    StressHarness( long seed, int churners, int operations, boolean isParallel ) throws RemoteException
+    {
+        this.seed = seed;
+        this.churners = churners;
+        this.operations = operations;
+        observerCount = isParallel ? PARALLEL_OBSERVERS : OBSERVERS;
+        fanOut = isParallel ? new FanOut( PARALLEL_FAN_OUT_THREADS, PARALLEL_FAN_OUT_THRESHOLD ) : new FanOut();
+        server = new ServerImpl( fanOut );
+        UnicastRemoteObject.unexportObject( server, true ); // in process only: no sockets
+    }
+
+    /**
+     * Run the stress rounds.
+     * @param args "parallel", rounds, churners, operations per churner, seed; each optional
+     * @throws Exception if a round cannot be set up
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        boolean isParallel = args.length > 0 && args[ 0 ].equals( "parallel" );
+        if ( isParallel )
+        {
+            args = Arrays.copyOfRange( args, 1, args.length );
+        }
+        int rounds     = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 20;
+        int churners   = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 16;
+        int operations = args.length > 2 ? Integer.parseInt( args[ 2 ] ) : 500;
+        long seed      = args.length > 3 ? Long.parseLong( args[ 3 ] ) : System.nanoTime();
+
+        for ( int round = 0; round < rounds; round++ )
+        {
+            long roundSeed = seed + round;
+            List<String> violations = new StressHarness( roundSeed, churners, operations, isParallel ).run();
+            if ( ! violations.isEmpty() )
+            {
+                System.out.println( "Round " + round + " FAILED. Replay its operations (not its thread schedule) with seed " 
+                                    + roundSeed + ":" );
+                violations.forEach( violation -> System.out.println( "   " + violation ) );
+                System.exit( 1 );
+            }
+            System.out.println( "Round " + round + " passed (seed " + roundSeed + ")." );
+        }
+    }
+
+    /**
+     * Run one round.
+     * @return the violations observed; empty if the round passed
+     * @throws InterruptedException if interrupted while awaiting quiescence
+     */
+    List<String> run() throws InterruptedException
+    {
+        List<Recorder> observers = new ArrayList<>();
+        for ( int i = 0; i < observerCount; i++ )
+        {
+            Recorder observer = new Recorder( "observer-" + i );
+            observers.add( observer );
+            server.login( observer, observer.name );
+        }
+
+        List<Thread> churnerThreads = new ArrayList<>();
+        for ( int i = 0; i < churners; i++ )
+        {
+            Thread thread = new Churner( "churner-" + i, new Random( seed * 31 + i ) );
+            churnerThreads.add( thread );
+            thread.start();
+        }
+        for ( Thread thread : churnerThreads )
+        {
+            thread.join();
+        }
+
+        // 2. Observers, logged in throughout, receive every message sent.
+        long deadline = System.currentTimeMillis() + QUIESCENCE_TIMEOUT;
+        for ( Recorder observer : observers )
+        {
+            while ( observer.received() < messagesSent.get() && System.currentTimeMillis() < deadline )
+            {
+                Thread.sleep( 10 );
+            }
+            if ( observer.received() != messagesSent.get() )
+            {
+                violations.add( observer.name + " received " + observer.received() + " of "
+                                + messagesSent.get() + " messages." );
+            }
+            server.logout( observer );
+        }
+
+        // 3. No ClientProxy outlives its login.
+        while ( liveClientProxyThreads() > 0 && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 10 );
+        }
+        if ( ! server.getClientProxies().isEmpty() )
+        {
+            violations.add( server.getClientProxies().size() + " ClientProxy objects remain after all logged out." );
+        }
+        if ( liveClientProxyThreads() > 0 )
+        {
+            violations.add( liveClientProxyThreads() + " ClientProxy Threads remain after all logged out." );
+        }
+        if ( observerCount == PARALLEL_OBSERVERS && fanOut.getParallelRuns() == 0 )
+        {
+            violations.add( "No broadcast was fanned out in parallel." );
+        }
+        server.shutdown();
+        return violations;
+    }
+
+    private static int liveClientProxyThreads()
+    {
+        int count = 0;
+        for ( Thread thread : Thread.getAllStackTraces().keySet() )
+        {
+            if ( thread.isAlive() && thread.getName().startsWith( ServerImpl.CLIENT_PROXY_THREAD_PREFIX ) )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A Client that records and checks the sequenced messages it receives.
+     */
+    private class Recorder implements Client
+    {
+        private final String name;
+        private final Map<String, Long> lastSequenceNumbers = new HashMap<>();
+        private long received;
+
+        Recorder( String name ) { this.name = name; }
+
+        /**
+         * 1. Each sender's sequence numbers must arrive strictly increasing.
+         */
+        @Override
+        synchronized public void update( Message message )
+        {
+            if ( ! message.getMessage().startsWith( SEQUENCE_PREFIX ) )
+            {
+                return; // e.g., "Signed on."
+            }
+            long sequenceNumber = Long.parseLong( message.getMessage().substring( SEQUENCE_PREFIX.length() ) );
+            Long last = lastSequenceNumbers.put( message.getName(), sequenceNumber );
+            if ( last != null && last >= sequenceNumber )
+            {
+                violations.add( name + " received " + message.getName() + SEQUENCE_PREFIX + sequenceNumber
+                                + " after " + SEQUENCE_PREFIX + last + "." );
+            }
+            received++;
+        }
+
+        synchronized long received() { return received; }
+    }
+
+    /**
+     * Randomly sends, logs in and out, and perturbs its Links.
+     * Most logins are a new session with its own Recorder and Link,
+     * as if the client process had restarted; the rest log the same session
+     * in again, either while it is logged in or after it has logged out.
+     */
+    private class Churner extends Thread
+    {
+        private final String name;
+        private final Random random;
+        private final LocalServer localServer;
+        private LocalClient session;
+        private LocalClient previousSession; // the session last logged out
+        private long sequenceNumber;
+
+        Churner( String name, Random random )
+        {
+            this.name = name;
+            this.random = random;
+            Link link = new Link( random.nextLong() );
+            link.setFailureRate( 0.02 );
+            localServer = new LocalServer( server, link );
+        }
+
+        @Override
+        public void run()
+        {
+            for ( int i = 0; i < operations; i++ )
+            {
+                try
+                {
+                    operate( random.nextInt( 100 ) );
+                }
+                catch ( RemoteException ignore ) {} // injected failure
+            }
+            if ( session != null )
+            {
+                server.logout( session ); // bypass the Link: the final logout must succeed
+            }
+        }
+
+        private void operate( int choice ) throws RemoteException
+        {
+            if ( choice < 50 )
+            {
+                String content = SEQUENCE_PREFIX + sequenceNumber++;
+                localServer.update( new Message( name, content ) );
+                messagesSent.incrementAndGet(); // only if it reached the server
+            }
+            else if ( choice < 62 )
+            {
+                if ( session == null )
+                {
+                    LocalClient newSession = new LocalClient( new Recorder( name ), new Link( random.nextLong() ) );
+                    localServer.login( newSession, name );
+                    session = newSession;
+                }
+                else
+                {
+                    localServer.logout( session );
+                    previousSession = session;
+                    session = null;
+                }
+            }
+            else if ( choice < 70 )
+            {
+                // Log the same Client in again, as ClientApp does: its Recorder then
+                // checks ordering across the old and new ClientProxy.
+                LocalClient sameSession = session != null ? session : previousSession;
+                if ( sameSession != null )
+                {
+                    localServer.login( sameSession, name );
+                    session = sameSession;
+                }
+            }
+            else if ( session == null )
+            {
+                return;
+            }
+            else if ( choice < 85 )
+            {
+                session.getLink().setLatency( random.nextInt( 3 ) );
+            }
+            else if ( choice < 97 )
+            {
+                session.getLink().stall();
+                try
+                {
+                    Thread.sleep( random.nextInt( 5 ) );
+                }
+                catch ( InterruptedException ignore ) {}
+                finally
+                {
+                    session.getLink().resume();
+                }
+            }
+            else
+            {
+                session.getLink().breakLink(); // its ClientProxy must log it out
+            }
+        }
+    }
+}
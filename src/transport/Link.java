@@ -0,0 +1,109 @@
+package transport;
+
+import java.rmi.RemoteException;
+import java.util.Random;
+
+/**
+ * The simulated network between an in-process caller and its callee.
+ * Each call traverses the Link, which may delay it, stall it, or fail it.
+ * Injected failures are drawn from a seeded Random, so that the sequence of
+ * failure draws can be replayed from its seed.
+ */
+public final class Link
+{
+    private final Random random;
+    private volatile long latency;      // milliseconds
+    private volatile double failureRate;
+    private volatile boolean isBroken;
+    private boolean isStalled;          // guarded by this
+
+    /**
+     * A Link that initially neither delays, stalls, nor fails calls.
+     * @param seed of the Random from which failures are drawn
+     */
+    public Link( long seed ) { random = new Random( seed ); }
+
+    /**
+     * Set the time each call spends traversing this Link.
+     * @param latency in milliseconds
+     */
+    public void setLatency( long latency )
+    {
+        assert latency >= 0;
+        this.latency = latency;
+    }
+
+    /**
+     * Set the probability that a call fails.
+     * @param failureRate in [0, 1]
+     */
+    public void setFailureRate( double failureRate )
+    {
+        assert 0.0 <= failureRate && failureRate <= 1.0;
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Fail every subsequent call, as when the remote JVM has died.
+     */
+    public void breakLink() { isBroken = true; }
+
+    /**
+     * Block subsequent calls until resume is invoked.
+     */
+    synchronized public void stall() { isStalled = true; }
+
+    /**
+     * Release all calls blocked by stall.
+     */
+    synchronized public void resume()
+    {
+        isStalled = false;
+        notifyAll();
+    }
+
+    /**
+     * Carry a call across this Link.
+     * Like an RMI call in progress, a traversal is not cut short by an interrupt;
+     * the caller's interrupt status is restored on return.
+     * @throws RemoteException when the call fails
+     */
+    void traverse() throws RemoteException
+    {
+        boolean isInterrupted = false;
+        synchronized ( this )
+        {
+            while ( isStalled )
+            {
+                try
+                {
+                    wait();
+                }
+                catch ( InterruptedException exception )
+                {
+                    isInterrupted = true;
+                }
+            }
+        }
+        long wakeTime = System.currentTimeMillis() + latency;
+        for ( long time = latency; time > 0; time = wakeTime - System.currentTimeMillis() )
+        {
+            try
+            {
+                Thread.sleep( time );
+            }
+            catch ( InterruptedException exception )
+            {
+                isInterrupted = true;
+            }
+        }
+        if ( isInterrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+        if ( isBroken || random.nextDouble() < failureRate )
+        {
+            throw new RemoteException( "Link failure (injected)." );
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package transport;
+
+import api.*;
+import java.rmi.RemoteException;
+
+/**
+ * An in-process stand-in for a Remote reference to a Client:
+ * each call traverses a Link before reaching the Client.
+ */
+public final class LocalClient implements Client
+{
+    private final Client client;
+    private final Link link;
+
+    /**
+     * @param client the Client to which calls are delivered
+     * @param link the Link each call traverses
+     */
+    public LocalClient( Client client, Link link )
+    {
+        assert client != null;
+        assert link != null;
+
+        this.client = client;
+        this.link = link;
+    }
+
+    @Override
+    public void update( Message message ) throws RemoteException
+    {
+        link.traverse();
+        client.update( message );
+    }
+
+    /**
+     * Get Link
+     * @return the Link each call traverses
+     */
+    public Link getLink() { return link; }
+}
@@ -0,0 +1,62 @@
+package transport;
+
+import api.*;
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * An in-process stand-in for a Remote reference to a Server:
+ * each call traverses a Link before reaching the Server.
+ */
+public final class LocalServer implements Server
+{
+    private final Server server;
+    private final Link link;
+
+    /**
+     * @param server the Server to which calls are delivered
+     * @param link the Link each call traverses
+     */
+    public LocalServer( Server server, Link link )
+    {
+        assert server != null;
+        assert link != null;
+
+        this.server = server;
+        this.link = link;
+    }
+
+    @Override
+    public void login( Client client, String name ) throws RemoteException
+    {
+        link.traverse();
+        server.login( client, name );
+    }
+
+    @Override
+    public void logout( Client client ) throws RemoteException
+    {
+        link.traverse();
+        server.logout( client );
+    }
+
+    @Override
+    public void update( Message message ) throws RemoteException
+    {
+        link.traverse();
+        server.update( message );
+    }
+
+    @Override
+    public List<String> list() throws RemoteException
+    {
+        link.traverse();
+        return server.list();
+    }
+
+    /**
+     * Get Link
+     * @return the Link each call traverses
+     */
+    public Link getLink() { return link; }
+}